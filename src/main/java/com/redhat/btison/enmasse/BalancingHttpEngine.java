@@ -0,0 +1,79 @@
+package com.redhat.btison.enmasse;
+
+import org.jboss.resteasy.client.jaxrs.ClientHttpEngine;
+import org.jboss.resteasy.client.jaxrs.internal.ClientInvocation;
+import org.jboss.resteasy.client.jaxrs.internal.ClientResponse;
+
+import javax.net.ssl.HostnameVerifier;
+import javax.net.ssl.SSLContext;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.UriBuilder;
+import java.net.URI;
+
+/**
+ * Sends requests for the balanced service endpoint to the pod chosen by the {@link EndpointBalancer}.
+ * The <code>Host</code> header keeps the service address, so that Keycloak issues and validates tokens
+ * for the same URL whichever pod handles the request.
+ * <p>
+ * A request counts as outstanding until its response headers arrive, not until the entity has been read.
+ * The admin client reads the small JSON entities right away, so the difference is negligible here.
+ */
+public class BalancingHttpEngine implements ClientHttpEngine {
+
+    private final ClientHttpEngine delegate;
+    private final EndpointBalancer balancer;
+
+    public BalancingHttpEngine(ClientHttpEngine delegate, EndpointBalancer balancer) {
+        this.delegate = delegate;
+        this.balancer = balancer;
+    }
+
+    @Override
+    public SSLContext getSslContext() {
+        return delegate.getSslContext();
+    }
+
+    @Override
+    public HostnameVerifier getHostnameVerifier() {
+        return delegate.getHostnameVerifier();
+    }
+
+    @Override
+    public ClientResponse invoke(ClientInvocation request) {
+        URI uri = request.getUri();
+        Endpoint endpoint = balancer.getEndpoint();
+        EndpointBalancer.Member member = null;
+        if (endpoint.getHost().equalsIgnoreCase(uri.getHost())) {
+            member = balancer.select();
+        }
+        if (member == null) {
+            return delegate.invoke(request);
+        }
+
+        request.setUri(UriBuilder.fromUri(uri)
+                .host(member.getEndpoint().getHost())
+                .port(member.getEndpoint().getPort())
+                .build());
+        request.getHeaders().header(HttpHeaders.HOST, endpoint.toString());
+        member.start();
+        try {
+            ClientResponse response = delegate.invoke(request);
+            if (response.getStatus() >= 500) {
+                member.failed();
+            } else {
+                member.succeeded();
+            }
+            return response;
+        } catch (RuntimeException e) {
+            member.failed();
+            throw e;
+        } finally {
+            request.setUri(uri);
+        }
+    }
+
+    @Override
+    public void close() {
+        delegate.close();
+    }
+}
@@ -0,0 +1,126 @@
+package com.redhat.btison.enmasse;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Spreads requests for a service endpoint across the individual pods behind it, picking the pod with the
+ * least outstanding requests, as counted by {@link BalancingHttpEngine}. Pods failing several requests in a row are ejected for a while; when no pod is
+ * left, requests go to the service endpoint itself.
+ */
+public class EndpointBalancer {
+
+    private static Logger log = LoggerFactory.getLogger(EndpointBalancer.class);
+
+    private static final int MAX_CONSECUTIVE_FAILURES = 3;
+    private static final long EJECTION_MILLIS = TimeUnit.SECONDS.toMillis(30);
+
+    private final Endpoint endpoint;
+    private final int maxConsecutiveFailures;
+    private final long ejectionMillis;
+    private volatile List<Member> members = Collections.emptyList();
+
+    public EndpointBalancer(Endpoint endpoint) {
+        this(endpoint, MAX_CONSECUTIVE_FAILURES, EJECTION_MILLIS);
+    }
+
+    EndpointBalancer(Endpoint endpoint, int maxConsecutiveFailures, long ejectionMillis) {
+        this.endpoint = endpoint;
+        this.maxConsecutiveFailures = maxConsecutiveFailures;
+        this.ejectionMillis = ejectionMillis;
+    }
+
+    /**
+     * The service endpoint whose requests are balanced.
+     */
+    public Endpoint getEndpoint() {
+        return endpoint;
+    }
+
+    /**
+     * Replaces the pod endpoints, keeping the state of pods that are still present.
+     */
+    public synchronized void update(List<Endpoint> endpoints) {
+        Map<String, Member> current = new HashMap<>();
+        for (Member member : members) {
+            current.put(member.endpoint.toString(), member);
+        }
+        List<Member> updated = new ArrayList<>(endpoints.size());
+        for (Endpoint podEndpoint : endpoints) {
+            Member member = current.get(podEndpoint.toString());
+            updated.add(member != null ? member : new Member(podEndpoint));
+        }
+        members = Collections.unmodifiableList(updated);
+        log.info("Balancing requests for {} across {}", endpoint, endpoints);
+    }
+
+    /**
+     * Returns the healthy member with the least outstanding requests, or null when no pod endpoint is known
+     * or all of them are ejected.
+     */
+    public Member select() {
+        List<Member> candidates = members;
+        if (candidates.isEmpty()) {
+            return null;
+        }
+        long now = System.currentTimeMillis();
+        int start = ThreadLocalRandom.current().nextInt(candidates.size());
+        Member selected = null;
+        for (int i = 0; i < candidates.size(); i++) {
+            Member member = candidates.get((start + i) % candidates.size());
+            if (!member.isEjected(now)
+                    && (selected == null || member.outstanding.get() < selected.outstanding.get())) {
+                selected = member;
+            }
+        }
+        return selected;
+    }
+
+    public class Member {
+
+        private final Endpoint endpoint;
+        private final AtomicInteger outstanding = new AtomicInteger();
+        private final AtomicInteger consecutiveFailures = new AtomicInteger();
+        private volatile long ejectedUntil;
+
+        private Member(Endpoint endpoint) {
+            this.endpoint = endpoint;
+        }
+
+        public Endpoint getEndpoint() {
+            return endpoint;
+        }
+
+        public void start() {
+            outstanding.incrementAndGet();
+        }
+
+        public void succeeded() {
+            outstanding.decrementAndGet();
+            consecutiveFailures.set(0);
+        }
+
+        public void failed() {
+            outstanding.decrementAndGet();
+            if (consecutiveFailures.incrementAndGet() >= maxConsecutiveFailures) {
+                consecutiveFailures.set(0);
+                ejectedUntil = System.currentTimeMillis() + ejectionMillis;
+                log.warn("Ejecting {} for {} ms after {} consecutive failures",
+                        endpoint, ejectionMillis, maxConsecutiveFailures);
+            }
+        }
+
+        private boolean isEjected(long now) {
+            return now < ejectedUntil;
+        }
+    }
+}
@@ -2,6 +2,8 @@ package com.redhat.btison.enmasse;
 
 import com.redhat.btison.enmasse.kubernetes.ClusterAccess;
 import com.redhat.btison.enmasse.kubernetes.Kubernetes;
+import io.fabric8.kubernetes.client.Watch;
+import org.jboss.resteasy.client.jaxrs.ResteasyClient;
 import org.jboss.resteasy.client.jaxrs.ResteasyClientBuilder;
 import org.keycloak.admin.client.Keycloak;
 import org.keycloak.admin.client.KeycloakBuilder;
@@ -18,6 +20,8 @@ import org.slf4j.LoggerFactory;
 
 import javax.ws.rs.core.Response;
 import java.io.ByteArrayInputStream;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.security.KeyStore;
 import java.security.cert.CertificateFactory;
 import java.util.Collections;
@@ -30,7 +34,9 @@ public class KeycloakAdminClient {
 
     private static Logger log = LoggerFactory.getLogger(KeycloakAdminClient.class);
 
-    private enum operations {CHECKREALM, CREATEUSER};
+    private static final int CONNECT_TIMEOUT_MILLIS = 5000;
+
+    private enum operations {CHECKREALM, CREATEUSER, EXPORTREALM, IMPORTREALM};
 
     @Option(name = "-h", usage = "Keycloak host", aliases = { "--host" })
     public String host;
@@ -65,12 +71,37 @@ public class KeycloakAdminClient {
     @Option(name= "-n", usage = "OpenShift namespace", aliases = { "--namespace"})
     public String namespace;
 
+    @Option(name= "--hash-passwords", usage = "Hash passwords on the client using the realm password policy. Keycloak does not "
+            + "check hashed passwords against the policy, the client checks its length, digits, lowerCase, upperCase, "
+            + "specialChars, notUsername and regexPattern rules but not passwordHistory or passwordBlacklist")
+    public boolean hashPasswords;
+
+    @Option(name= "--load-balance", usage = "Spread requests across the Keycloak pods behind the standard-authservice service, "
+            + "cannot be used with --host")
+    public boolean loadBalance;
+
+    @Option(name= "-f", usage = "Realm export file (gzip-compressed JSON Lines)", aliases = { "--file"})
+    public String file;
+
+    @Option(name= "--page-size", usage = "Number of users fetched per request on realm export")
+    public int pageSize = 100;
+
+    @Option(name= "--batch-size", usage = "Number of users created per batch on realm import")
+    public int batchSize = 100;
+
+    @Option(name= "--threads", usage = "Number of concurrent requests on realm import")
+    public int threads = 8;
+
     private Endpoint endpoint;
 
     private KeycloakCredentials credentials;
 
     private KeyStore trustStore;
 
+    private EndpointBalancer balancer;
+
+    private Watch endpointsWatch;
+
     public static void main(String[] args) {
 
         KeycloakAdminClient client = new KeycloakAdminClient();
@@ -83,17 +114,24 @@ public class KeycloakAdminClient {
             parser.printUsage(System.err);
             System.exit(-1);
         }
+        int status = 0;
         try {
             client.init();
             client.process();
-            System.exit(0);
         } catch (Exception e) {
             e.printStackTrace();
-            System.exit(-1);
+            status = -1;
+        } finally {
+            client.close();
         }
+        System.exit(status);
     }
 
     private void init() throws Exception {
+        if (loadBalance && host != null) {
+            throw new IllegalArgumentException("--load-balance balances across the standard-authservice pods "
+                    + "and cannot be used with --host");
+        }
         ClusterAccess clusterAccess = new ClusterAccess(namespace);
         Kubernetes kubernetes = Kubernetes.create(clusterAccess);
         if (host != null) {
@@ -107,6 +145,22 @@ public class KeycloakAdminClient {
             credentials = kubernetes.getKeycloakCredentials();
         }
         trustStore = createTrustStore(kubernetes.getKeycloakCA());
+        if (loadBalance) {
+            List<Endpoint> podEndpoints = kubernetes.getKeycloakPodEndpoints();
+            if (podEndpoints.stream().noneMatch(podEndpoint -> TestUtils.reachable(podEndpoint, CONNECT_TIMEOUT_MILLIS))) {
+                throw new IllegalStateException("None of the standard-authservice pods " + podEndpoints
+                        + " is reachable from here, --load-balance requires access to the cluster network");
+            }
+            balancer = new EndpointBalancer(endpoint);
+            balancer.update(podEndpoints);
+            endpointsWatch = kubernetes.watchKeycloakPodEndpoints(balancer::update);
+        }
+    }
+
+    private void close() {
+        if (endpointsWatch != null) {
+            endpointsWatch.close();
+        }
     }
 
     private void process() throws Exception {
@@ -114,11 +168,31 @@ public class KeycloakAdminClient {
             createUser(realm, username, password, timeout, timeUnit);
         } else if (operations.CHECKREALM.name().equals(processOperation(operation))) {
             checkRealmExists(realm, timeout, timeUnit);
+        } else if (operations.EXPORTREALM.name().equals(processOperation(operation))) {
+            requirePositive("--page-size", pageSize);
+            exportRealm(realm, getFile(), timeout, timeUnit);
+        } else if (operations.IMPORTREALM.name().equals(processOperation(operation))) {
+            requirePositive("--batch-size", batchSize);
+            requirePositive("--threads", threads);
+            importRealm(realm, getFile(), timeout, timeUnit);
         } else {
             throw new UnsupportedOperationException("Operation " + operation + " is not supported");
         }
     }
 
+    private Path getFile() {
+        if (file == null || file.isEmpty()) {
+            throw new IllegalArgumentException("Operation " + operation + " requires --file");
+        }
+        return Paths.get(file);
+    }
+
+    private static void requirePositive(String option, int value) {
+        if (value <= 0) {
+            throw new IllegalArgumentException(option + " must be positive, got " + value);
+        }
+    }
+
     private String processOperation(String operation) {
         return operation.replace("-", "").toUpperCase();
     }
@@ -126,18 +200,28 @@ public class KeycloakAdminClient {
     private void createUser(String realm, String userName, String password, int timeout, TimeUnit timeUnit) throws Exception {
 
         int maxRetries = 10;
-        try (CloseableKeycloak keycloak = new CloseableKeycloak(endpoint, credentials, trustStore)) {
+        try (CloseableKeycloak keycloak = new CloseableKeycloak(endpoint, credentials, trustStore, balancer)) {
             RealmResource realmResource = checkRealmExists(keycloak.get(), realm, timeout, timeUnit);
+            PasswordHasher passwordHasher = null;
+            if (hashPasswords) {
+                passwordHasher = PasswordHasher.forRealm(realmResource.toRepresentation());
+                passwordHasher.validate(userName, password);
+            }
 
             for (int retries = 0; retries < maxRetries; retries++) {
                 try {
                     if (realmResource.users().search(userName).isEmpty()) {
                         UserRepresentation userRep = new UserRepresentation();
                         userRep.setUsername(userName);
-                        CredentialRepresentation cred = new CredentialRepresentation();
-                        cred.setType(CredentialRepresentation.PASSWORD);
-                        cred.setValue(password);
-                        cred.setTemporary(false);
+                        CredentialRepresentation cred;
+                        if (passwordHasher != null) {
+                            cred = passwordHasher.hash(password);
+                        } else {
+                            cred = new CredentialRepresentation();
+                            cred.setType(CredentialRepresentation.PASSWORD);
+                            cred.setValue(password);
+                            cred.setTemporary(false);
+                        }
                         userRep.setCredentials(Collections.singletonList(cred));
                         userRep.setEnabled(true);
                         Response response = keycloak.get().realm(realm).users().create(userRep);
@@ -166,9 +250,24 @@ public class KeycloakAdminClient {
         joinGroup(realm, manageGroup, userName, timeout, timeUnit);
     }
 
+    private void exportRealm(String realm, Path file, int timeout, TimeUnit timeUnit) throws Exception {
+        try (CloseableKeycloak keycloak = new CloseableKeycloak(endpoint, credentials, trustStore, balancer)) {
+            RealmResource realmResource = checkRealmExists(keycloak.get(), realm, timeout, timeUnit);
+            new RealmTransfer(realmResource).exportTo(file, pageSize);
+        }
+    }
+
+    private void importRealm(String realm, Path file, int timeout, TimeUnit timeUnit) throws Exception {
+        try (CloseableKeycloak keycloak = new CloseableKeycloak(endpoint, credentials, trustStore, balancer, threads)) {
+            RealmResource realmResource = checkRealmExists(keycloak.get(), realm, timeout, timeUnit);
+            PasswordHasher passwordHasher = hashPasswords ? PasswordHasher.forRealm(realmResource.toRepresentation()) : null;
+            new RealmTransfer(realmResource, passwordHasher).importFrom(file, batchSize, threads);
+        }
+    }
+
     private void createGroup(String realm, String groupName) throws Exception {
         int maxRetries = 10;
-        try (CloseableKeycloak keycloak = new CloseableKeycloak(endpoint, credentials, trustStore)) {
+        try (CloseableKeycloak keycloak = new CloseableKeycloak(endpoint, credentials, trustStore, balancer)) {
             if (!groupExist(keycloak, realm, groupName)) {
                 for (int retries = 0; retries < maxRetries; retries++) {
                     try {
@@ -208,7 +307,7 @@ public class KeycloakAdminClient {
     private void groupOperation(String realm, String groupName, String username, int timeout, TimeUnit timeUnit,
                                GroupMethod<RealmResource, String, String> groupMethod) throws Exception {
         int maxRetries = 10;
-        try (CloseableKeycloak keycloak = new CloseableKeycloak(endpoint, credentials, trustStore)) {
+        try (CloseableKeycloak keycloak = new CloseableKeycloak(endpoint, credentials, trustStore, balancer)) {
             RealmResource realmResource = checkRealmExists(keycloak.get(), realm, timeout, timeUnit);
             for (int retries = 0; retries < maxRetries; retries++) {
                 try {
@@ -247,7 +346,7 @@ public class KeycloakAdminClient {
     }
 
     private RealmResource checkRealmExists(String realmName, long timeout, TimeUnit timeUnit) throws Exception {
-        try (CloseableKeycloak keycloak = new CloseableKeycloak(endpoint, credentials, trustStore)) {
+        try (CloseableKeycloak keycloak = new CloseableKeycloak(endpoint, credentials, trustStore, balancer)) {
             return checkRealmExists(keycloak.get(), realmName, timeout, timeUnit);
         }
     }
@@ -310,19 +409,33 @@ public class KeycloakAdminClient {
 
         private final Keycloak keycloak;
 
-        private CloseableKeycloak(Endpoint endpoint, KeycloakCredentials credentials, KeyStore trustStore) {
+        private CloseableKeycloak(Endpoint endpoint, KeycloakCredentials credentials, KeyStore trustStore,
+                                  EndpointBalancer balancer) {
+            this(endpoint, credentials, trustStore, balancer, 1);
+        }
+
+        private CloseableKeycloak(Endpoint endpoint, KeycloakCredentials credentials, KeyStore trustStore,
+                                  EndpointBalancer balancer, int connectionPoolSize) {
             log.info("Logging into keycloak with {}/{}", credentials.getUsername(), credentials.getPassword());
+            ResteasyClient resteasyClient = new ResteasyClientBuilder()
+                    .disableTrustManager()
+                    .trustStore(trustStore)
+                    .hostnameVerification(ResteasyClientBuilder.HostnameVerificationPolicy.ANY)
+                    .connectionPoolSize(connectionPoolSize)
+                    .establishConnectionTimeout(CONNECT_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)
+                    .build();
+            if (balancer != null) {
+                resteasyClient = new ResteasyClientBuilder()
+                        .httpEngine(new BalancingHttpEngine(resteasyClient.httpEngine(), balancer))
+                        .build();
+            }
             this.keycloak = KeycloakBuilder.builder()
                     .serverUrl("https://" + endpoint.getHost() + ":" + endpoint.getPort() + "/auth")
                     .realm("master")
                     .username(credentials.getUsername())
                     .password(credentials.getPassword())
                     .clientId("admin-cli")
-                    .resteasyClient(new ResteasyClientBuilder()
-                            .disableTrustManager()
-                            .trustStore(trustStore)
-                            .hostnameVerification(ResteasyClientBuilder.HostnameVerificationPolicy.ANY)
-                            .build())
+                    .resteasyClient(resteasyClient)
                     .build();
         }
 
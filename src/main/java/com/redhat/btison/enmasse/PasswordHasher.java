@@ -0,0 +1,206 @@
+package com.redhat.btison.enmasse;
+
+import org.keycloak.representations.idm.CredentialRepresentation;
+import org.keycloak.representations.idm.RealmRepresentation;
+import org.keycloak.representations.idm.UserRepresentation;
+
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.IntPredicate;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Computes Keycloak compatible PBKDF2 password hashes on the client, so that Keycloak only has to store
+ * the <code>hashedSaltedValue</code> instead of hashing every password itself.
+ */
+public class PasswordHasher {
+
+    private static final Pattern POLICY = Pattern.compile("(\\w+)(?:\\((.*)\\))?");
+
+    private static final String DEFAULT_ALGORITHM = "pbkdf2-sha256";
+    private static final int DERIVED_KEY_SIZE = 512;
+    private static final int SALT_SIZE = 16;
+
+    private static final SecureRandom random = new SecureRandom();
+
+    private final String algorithm;
+    private final String keyAlgorithm;
+    private final int iterations;
+    private final Map<String, String> policy;
+
+    public PasswordHasher(String algorithm, int iterations) {
+        this(algorithm, iterations, Collections.emptyMap());
+    }
+
+    private PasswordHasher(String algorithm, int iterations, Map<String, String> policy) {
+        this.algorithm = algorithm;
+        this.keyAlgorithm = getKeyAlgorithm(algorithm);
+        this.iterations = iterations;
+        this.policy = policy;
+    }
+
+    /**
+     * Creates a hasher matching the <code>hashAlgorithm</code> and <code>hashIterations</code> of the realm
+     * password policy, falling back to the Keycloak defaults when the policy doesn't set them: pbkdf2-sha256,
+     * with the default iterations of the algorithm's hash provider. The other
+     * rules of the policy are checked by {@link #validate(String, String)}.
+     */
+    public static PasswordHasher forRealm(RealmRepresentation realm) {
+        Map<String, String> policy = parsePolicy(realm.getPasswordPolicy());
+        String algorithm = policy.getOrDefault("hashAlgorithm", DEFAULT_ALGORITHM);
+        int iterations = policy.containsKey("hashIterations")
+                ? Integer.parseInt(policy.get("hashIterations"))
+                : getDefaultIterations(algorithm);
+        return new PasswordHasher(algorithm, iterations, policy);
+    }
+
+    /**
+     * Parses a policy string such as <code>length(8) and digits(2) and notUsername</code> into rule names and
+     * their configuration, null for rules without one.
+     */
+    static Map<String, String> parsePolicy(String passwordPolicy) {
+        Map<String, String> policy = new LinkedHashMap<>();
+        if (passwordPolicy == null || passwordPolicy.trim().isEmpty()) {
+            return policy;
+        }
+        for (String rule : passwordPolicy.split(" and ")) {
+            Matcher matcher = POLICY.matcher(rule.trim());
+            if (!matcher.matches()) {
+                throw new IllegalArgumentException("Unable to parse password policy: " + passwordPolicy);
+            }
+            String config = matcher.group(2);
+            policy.put(matcher.group(1), config != null ? config.trim() : null);
+        }
+        return policy;
+    }
+
+    /**
+     * Checks the password against the rules of the realm password policy Keycloak enforces on plaintext
+     * passwords, since it skips them for hashed ones. <code>passwordHistory</code> and
+     * <code>passwordBlacklist</code> need server side state and are not checked.
+     */
+    public void validate(String username, String password) {
+        for (Map.Entry<String, String> rule : policy.entrySet()) {
+            switch (rule.getKey()) {
+                case "length":
+                    require(password.length() >= getInt(rule, 8), "be at least " + getInt(rule, 8) + " characters long");
+                    break;
+                case "digits":
+                    require(count(password, Character::isDigit) >= getInt(rule, 1),
+                            "contain at least " + getInt(rule, 1) + " digits");
+                    break;
+                case "lowerCase":
+                    require(count(password, Character::isLowerCase) >= getInt(rule, 1),
+                            "contain at least " + getInt(rule, 1) + " lower case characters");
+                    break;
+                case "upperCase":
+                    require(count(password, Character::isUpperCase) >= getInt(rule, 1),
+                            "contain at least " + getInt(rule, 1) + " upper case characters");
+                    break;
+                case "specialChars":
+                    require(count(password, c -> !Character.isLetterOrDigit(c)) >= getInt(rule, 1),
+                            "contain at least " + getInt(rule, 1) + " special characters");
+                    break;
+                case "notUsername":
+                    require(!password.equals(username), "not be equal to the username");
+                    break;
+                case "regexPattern":
+                    require(Pattern.compile(rule.getValue()).matcher(password).matches(),
+                            "match pattern " + rule.getValue());
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+
+    private static int getInt(Map.Entry<String, String> rule, int defaultValue) {
+        return rule.getValue() != null ? Integer.parseInt(rule.getValue()) : defaultValue;
+    }
+
+    private static int count(String password, IntPredicate predicate) {
+        return (int) password.chars().filter(predicate).count();
+    }
+
+    private static void require(boolean valid, String rule) {
+        if (!valid) {
+            throw new IllegalArgumentException("Password must " + rule);
+        }
+    }
+
+    private static int getDefaultIterations(String algorithm) {
+        switch (algorithm) {
+            case "pbkdf2":
+                return 20000;
+            case "pbkdf2-sha256":
+                return 27500;
+            case "pbkdf2-sha512":
+                return 30000;
+            default:
+                throw new IllegalArgumentException("Unsupported password hash algorithm: " + algorithm);
+        }
+    }
+
+    private static String getKeyAlgorithm(String algorithm) {
+        switch (algorithm) {
+            case "pbkdf2":
+                return "PBKDF2WithHmacSHA1";
+            case "pbkdf2-sha256":
+                return "PBKDF2WithHmacSHA256";
+            case "pbkdf2-sha512":
+                return "PBKDF2WithHmacSHA512";
+            default:
+                throw new IllegalArgumentException("Unsupported password hash algorithm: " + algorithm);
+        }
+    }
+
+    public CredentialRepresentation hash(String password) {
+        byte[] salt = new byte[SALT_SIZE];
+        random.nextBytes(salt);
+
+        CredentialRepresentation cred = new CredentialRepresentation();
+        cred.setType(CredentialRepresentation.PASSWORD);
+        cred.setAlgorithm(algorithm);
+        cred.setHashIterations(iterations);
+        cred.setSalt(Base64.getEncoder().encodeToString(salt));
+        cred.setHashedSaltedValue(Base64.getEncoder().encodeToString(deriveKey(password, salt)));
+        cred.setTemporary(false);
+        return cred;
+    }
+
+    /**
+     * Replaces the plaintext password credentials of the user with hashed ones, after validating them.
+     */
+    public void hashCredentials(UserRepresentation user) {
+        if (user.getCredentials() == null) {
+            return;
+        }
+        user.getCredentials().replaceAll(cred -> {
+            if (!CredentialRepresentation.PASSWORD.equals(cred.getType()) || cred.getValue() == null) {
+                return cred;
+            }
+            validate(user.getUsername(), cred.getValue());
+            CredentialRepresentation hashed = hash(cred.getValue());
+            hashed.setTemporary(cred.isTemporary());
+            return hashed;
+        });
+    }
+
+    private byte[] deriveKey(String password, byte[] salt) {
+        PBEKeySpec spec = new PBEKeySpec(password.toCharArray(), salt, iterations, DERIVED_KEY_SIZE);
+        try {
+            return SecretKeyFactory.getInstance(keyAlgorithm).generateSecret(spec).getEncoded();
+        } catch (GeneralSecurityException e) {
+            throw new RuntimeException("Unable to hash password with " + keyAlgorithm, e);
+        } finally {
+            spec.clearPassword();
+        }
+    }
+}
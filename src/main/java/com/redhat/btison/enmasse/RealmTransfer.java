@@ -0,0 +1,430 @@
+package com.redhat.btison.enmasse;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.keycloak.admin.client.resource.RealmResource;
+import org.keycloak.representations.idm.GroupRepresentation;
+import org.keycloak.representations.idm.UserRepresentation;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.ws.rs.core.Response;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Streams the users, groups and group memberships of a realm to and from a gzip-compressed JSON Lines file.
+ * <p>
+ * Every line holds one record: <code>{"type":"group","group":{...}}</code>, <code>{"type":"user","user":{...}}</code>
+ * or <code>{"type":"membership","group":"/path","user":"username"}</code>. Groups are written parent first,
+ * followed by the users and then the memberships. Users and members are read page by page on export and
+ * created in concurrent batches on import, so memory use does not grow with the size of the realm.
+ * Credentials are not part of the export, the admin API does not expose them. User records written by hand
+ * may carry password credentials though, which are hashed on the client when a {@link PasswordHasher} is set.
+ */
+public class RealmTransfer {
+
+    private static Logger log = LoggerFactory.getLogger(RealmTransfer.class);
+
+    private static final String GROUP = "group";
+    private static final String USER = "user";
+    private static final String MEMBERSHIP = "membership";
+
+    private static final int MAX_RETRIES = 3;
+
+    private final RealmResource realmResource;
+    private final PasswordHasher passwordHasher;
+    private final ObjectMapper mapper;
+
+    public RealmTransfer(RealmResource realmResource) {
+        this(realmResource, null);
+    }
+
+    public RealmTransfer(RealmResource realmResource, PasswordHasher passwordHasher) {
+        this.realmResource = realmResource;
+        this.passwordHasher = passwordHasher;
+        this.mapper = new ObjectMapper()
+                .setSerializationInclusion(JsonInclude.Include.NON_EMPTY)
+                .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+    }
+
+    public void exportTo(Path file, int pageSize) throws IOException {
+        if (pageSize <= 0) {
+            throw new IllegalArgumentException("Page size must be positive: " + pageSize);
+        }
+        Map<String, String> groupIds = new LinkedHashMap<>();
+        int users = 0;
+        int memberships = 0;
+        try (BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(
+                new GZIPOutputStream(Files.newOutputStream(file)), StandardCharsets.UTF_8))) {
+            for (GroupRepresentation group : realmResource.groups().groups()) {
+                writeGroup(writer, group, groupIds);
+            }
+            for (int first = 0; ; first += pageSize) {
+                List<UserRepresentation> page = realmResource.users().search(null, first, pageSize);
+                for (UserRepresentation user : page) {
+                    user.setId(null);
+                    user.setAccess(null);
+                    writeRecord(writer, encodeUser(user));
+                }
+                users += page.size();
+                if (page.size() < pageSize) {
+                    break;
+                }
+                log.info("Exported {} users", users);
+            }
+            for (Map.Entry<String, String> group : groupIds.entrySet()) {
+                for (int first = 0; ; first += pageSize) {
+                    List<UserRepresentation> page = realmResource.groups().group(group.getValue()).members(first, pageSize);
+                    for (UserRepresentation member : page) {
+                        writeRecord(writer, encodeMembership(group.getKey(), member.getUsername()));
+                    }
+                    memberships += page.size();
+                    if (page.size() < pageSize) {
+                        break;
+                    }
+                }
+            }
+        }
+        log.info("Exported {} groups, {} users and {} memberships to {}", groupIds.size(), users, memberships, file);
+    }
+
+    private void writeGroup(BufferedWriter writer, GroupRepresentation group, Map<String, String> groupIds)
+            throws IOException {
+        List<GroupRepresentation> subGroups = group.getSubGroups();
+        groupIds.put(group.getPath(), group.getId());
+        if (hasRoleMappings(group)) {
+            log.warn("Role mappings of group {} are not exported", group.getPath());
+        }
+        group.setId(null);
+        group.setSubGroups(null);
+        group.setRealmRoles(null);
+        group.setClientRoles(null);
+        group.setAccess(null);
+        writeRecord(writer, encodeGroup(group));
+        if (subGroups != null) {
+            for (GroupRepresentation subGroup : subGroups) {
+                writeGroup(writer, subGroup, groupIds);
+            }
+        }
+    }
+
+    private static boolean hasRoleMappings(GroupRepresentation group) {
+        return (group.getRealmRoles() != null && !group.getRealmRoles().isEmpty())
+                || (group.getClientRoles() != null && !group.getClientRoles().isEmpty());
+    }
+
+    private void writeRecord(BufferedWriter writer, String record) throws IOException {
+        writer.write(record);
+        writer.newLine();
+    }
+
+    String encodeGroup(GroupRepresentation group) throws IOException {
+        ObjectNode record = mapper.createObjectNode();
+        record.put("type", GROUP);
+        record.set(GROUP, mapper.valueToTree(group));
+        return mapper.writeValueAsString(record);
+    }
+
+    String encodeUser(UserRepresentation user) throws IOException {
+        ObjectNode record = mapper.createObjectNode();
+        record.put("type", USER);
+        record.set(USER, mapper.valueToTree(user));
+        return mapper.writeValueAsString(record);
+    }
+
+    String encodeMembership(String groupPath, String username) throws IOException {
+        ObjectNode record = mapper.createObjectNode();
+        record.put("type", MEMBERSHIP);
+        record.put(GROUP, groupPath);
+        record.put(USER, username);
+        return mapper.writeValueAsString(record);
+    }
+
+    /**
+     * Parses one line of the file, rejecting unknown record types.
+     */
+    Record decode(String line) throws IOException {
+        JsonNode node = mapper.readTree(line);
+        String type = node.path("type").asText();
+        Record record = new Record(type);
+        if (GROUP.equals(type)) {
+            record.group = mapper.treeToValue(node.get(GROUP), GroupRepresentation.class);
+        } else if (USER.equals(type)) {
+            record.user = mapper.treeToValue(node.get(USER), UserRepresentation.class);
+        } else if (MEMBERSHIP.equals(type)) {
+            record.groupPath = node.path(GROUP).asText();
+            record.username = node.path(USER).asText();
+        } else {
+            throw new IllegalArgumentException("Unknown record type: " + type);
+        }
+        return record;
+    }
+
+    public void importFrom(Path file, int batchSize, int threads) throws Exception {
+        if (batchSize <= 0 || threads <= 0) {
+            throw new IllegalArgumentException("Batch size and threads must be positive: " + batchSize + ", " + threads);
+        }
+        Map<String, String> groupIds = new ConcurrentHashMap<>();
+        for (GroupRepresentation group : realmResource.groups().groups()) {
+            collectGroupIds(group, groupIds);
+        }
+
+        Map<String, String> userIds = new ConcurrentHashMap<>();
+        ImportCounters counters = new ImportCounters();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new GZIPInputStream(Files.newInputStream(file)), StandardCharsets.UTF_8))) {
+            List<Callable<Void>> batch = new ArrayList<>(batchSize);
+            String batchType = null;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty()) {
+                    continue;
+                }
+                Record record = decode(line);
+                String type = record.type;
+                if (!batch.isEmpty() && (!type.equals(batchType) || batch.size() >= batchSize)) {
+                    runBatch(executor, batch);
+                    log.info("Imported {} users and {} memberships",
+                            counters.created.get() + counters.existing.get(), counters.joined.get());
+                }
+                batchType = type;
+                if (GROUP.equals(type)) {
+                    importGroup(record.group, groupIds);
+                } else if (USER.equals(type)) {
+                    batch.add(() -> {
+                        importUser(record.user, userIds, counters);
+                        return null;
+                    });
+                } else {
+                    batch.add(() -> {
+                        importMembership(record.groupPath, record.username, groupIds, userIds, counters);
+                        return null;
+                    });
+                }
+            }
+            runBatch(executor, batch);
+        } finally {
+            executor.shutdown();
+        }
+        log.info("Import from {} done: {} users created, {} already existing, {} failed, {} memberships added, {} failed",
+                file, counters.created.get(), counters.existing.get(), counters.failedUsers.get(),
+                counters.joined.get(), counters.failedMemberships.get());
+        if (counters.failedUsers.get() > 0 || counters.failedMemberships.get() > 0) {
+            throw new RuntimeException("Unable to import " + counters.failedUsers.get() + " users and "
+                    + counters.failedMemberships.get() + " memberships");
+        }
+    }
+
+    private void collectGroupIds(GroupRepresentation group, Map<String, String> groupIds) {
+        groupIds.put(group.getPath(), group.getId());
+        if (group.getSubGroups() != null) {
+            for (GroupRepresentation subGroup : group.getSubGroups()) {
+                collectGroupIds(subGroup, groupIds);
+            }
+        }
+    }
+
+    private void importGroup(GroupRepresentation group, Map<String, String> groupIds) throws Exception {
+        String path = group.getPath();
+        if (groupIds.containsKey(path)) {
+            log.info("Group " + path + " already created, skipping");
+            return;
+        }
+        String parentPath = path.substring(0, path.lastIndexOf('/'));
+        String parentId = parentPath.isEmpty() ? null : groupIds.get(parentPath);
+        if (!parentPath.isEmpty() && parentId == null) {
+            throw new IllegalStateException("Unable to find parent group " + parentPath + " for group " + path);
+        }
+        String id = withRetries(retry -> createGroup(group, parentId, retry));
+        groupIds.put(path, id);
+    }
+
+    /**
+     * Returns the id of the created group. A conflict after a failed attempt is most likely that attempt
+     * having been applied, so the id of the existing group is returned.
+     */
+    private String createGroup(GroupRepresentation group, String parentId, boolean retry) {
+        Response response = parentId == null
+                ? realmResource.groups().add(group)
+                : realmResource.groups().group(parentId).subGroup(group);
+        try {
+            if (response.getStatus() == 201) {
+                return getCreatedId(response);
+            } else if (response.getStatus() == 409 && retry) {
+                Map<String, String> existing = new HashMap<>();
+                for (GroupRepresentation existingGroup : realmResource.groups().groups()) {
+                    collectGroupIds(existingGroup, existing);
+                }
+                if (existing.containsKey(group.getPath())) {
+                    return existing.get(group.getPath());
+                }
+            }
+            throw new RuntimeException("Unable to create group " + group.getPath() + ": " + response.getStatus());
+        } finally {
+            response.close();
+        }
+    }
+
+    private void runBatch(ExecutorService executor, List<Callable<Void>> batch) throws InterruptedException {
+        List<Future<Void>> futures = new ArrayList<>(batch.size());
+        for (Callable<Void> task : batch) {
+            futures.add(executor.submit(task));
+        }
+        for (Future<Void> future : futures) {
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                log.warn("Unexpected import failure", e.getCause());
+            }
+        }
+        batch.clear();
+    }
+
+    private void importUser(UserRepresentation user, Map<String, String> userIds, ImportCounters counters) {
+        try {
+            if (passwordHasher != null) {
+                passwordHasher.hashCredentials(user);
+            }
+            boolean created = withRetries(retry -> createUser(user, userIds, retry));
+            (created ? counters.created : counters.existing).incrementAndGet();
+        } catch (Exception e) {
+            counters.failedUsers.incrementAndGet();
+            log.warn("Unable to import user {} ({})", user.getUsername(), e.getMessage());
+        }
+    }
+
+    /**
+     * Returns true if the user was created, false if it already existed. A conflict after a failed attempt
+     * is most likely that attempt having been applied, so it counts as created. The ids of created users
+     * are kept, so memberships don't have to look them up.
+     */
+    private boolean createUser(UserRepresentation user, Map<String, String> userIds, boolean retry) {
+        Response response = realmResource.users().create(user);
+        try {
+            if (response.getStatus() == 201) {
+                userIds.put(user.getUsername().toLowerCase(), getCreatedId(response));
+                return true;
+            } else if (response.getStatus() == 409) {
+                if (!retry) {
+                    log.info("User " + user.getUsername() + " already created, skipping");
+                }
+                return retry;
+            }
+            throw new RuntimeException("Unable to create user " + user.getUsername() + ": " + response.getStatus());
+        } finally {
+            response.close();
+        }
+    }
+
+    private void importMembership(String groupPath, String username, Map<String, String> groupIds,
+                                  Map<String, String> userIds, ImportCounters counters) {
+        try {
+            String groupId = groupIds.get(groupPath);
+            if (groupId == null) {
+                throw new IllegalStateException("Unable to find group: " + groupPath);
+            }
+            withRetries(retry -> {
+                realmResource.users().get(getUserId(username, userIds)).joinGroup(groupId);
+                return null;
+            });
+            counters.joined.incrementAndGet();
+        } catch (Exception e) {
+            counters.failedMemberships.incrementAndGet();
+            log.warn("Unable to add user {} to group {} ({})", username, groupPath, e.getMessage());
+        }
+    }
+
+    /**
+     * Returns the id of the user, looking up users that existed before the import. The username search is a
+     * substring match, so results are paged until the exact username shows up.
+     */
+    private String getUserId(String username, Map<String, String> userIds) {
+        String key = username.toLowerCase();
+        String id = userIds.get(key);
+        if (id != null) {
+            return id;
+        }
+        int pageSize = 100;
+        for (int first = 0; ; first += pageSize) {
+            List<UserRepresentation> page = realmResource.users().search(username, null, null, null, first, pageSize);
+            for (UserRepresentation user : page) {
+                if (user.getUsername().equalsIgnoreCase(username)) {
+                    userIds.put(key, user.getId());
+                    return user.getId();
+                }
+            }
+            if (page.size() < pageSize) {
+                throw new RuntimeException("Unable to find user: " + username);
+            }
+        }
+    }
+
+    private static <T> T withRetries(RetryableCall<T> call) throws Exception {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return call.apply(attempt > 1);
+            } catch (Exception e) {
+                if (attempt >= MAX_RETRIES) {
+                    throw e;
+                }
+                log.info("Exception querying keycloak ({}), retrying", e.getMessage());
+                Thread.sleep(2000);
+            }
+        }
+    }
+
+    private static String getCreatedId(Response response) {
+        String path = response.getLocation().getPath();
+        return path.substring(path.lastIndexOf('/') + 1);
+    }
+
+    @FunctionalInterface
+    interface RetryableCall<T> {
+        T apply(boolean retry) throws Exception;
+    }
+
+    static class Record {
+        final String type;
+        GroupRepresentation group;
+        UserRepresentation user;
+        String groupPath;
+        String username;
+
+        private Record(String type) {
+            this.type = type;
+        }
+    }
+
+    private static class ImportCounters {
+        private final AtomicInteger created = new AtomicInteger();
+        private final AtomicInteger existing = new AtomicInteger();
+        private final AtomicInteger failedUsers = new AtomicInteger();
+        private final AtomicInteger joined = new AtomicInteger();
+        private final AtomicInteger failedMemberships = new AtomicInteger();
+    }
+}
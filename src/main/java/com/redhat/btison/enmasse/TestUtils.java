@@ -2,6 +2,8 @@ package com.redhat.btison.enmasse;
 
 import java.net.Inet4Address;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
 import java.net.UnknownHostException;
 import java.util.concurrent.Callable;
 
@@ -20,6 +22,15 @@ public class TestUtils {
         return false;
     }
 
+    public static boolean reachable(Endpoint endpoint, int timeoutMillis) {
+        try (Socket socket = new Socket()) {
+            socket.connect(new InetSocketAddress(endpoint.getHost(), endpoint.getPort()), timeoutMillis);
+            return true;
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
     public static <T> T doRequestNTimes(int retry, Callable<T> fn) throws Exception {
         try {
             return fn.call();
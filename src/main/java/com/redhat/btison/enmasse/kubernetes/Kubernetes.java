@@ -7,6 +7,10 @@ import java.util.Base64;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 import org.slf4j.Logger;
@@ -15,12 +19,17 @@ import org.slf4j.LoggerFactory;
 import com.redhat.btison.enmasse.Endpoint;
 import com.redhat.btison.enmasse.KeycloakCredentials;
 
+import io.fabric8.kubernetes.api.model.EndpointAddress;
+import io.fabric8.kubernetes.api.model.EndpointPort;
+import io.fabric8.kubernetes.api.model.EndpointSubset;
+import io.fabric8.kubernetes.api.model.Endpoints;
 import io.fabric8.kubernetes.api.model.Event;
 import io.fabric8.kubernetes.api.model.Pod;
 import io.fabric8.kubernetes.api.model.Secret;
 import io.fabric8.kubernetes.api.model.Service;
 import io.fabric8.kubernetes.api.model.ServicePort;
 import io.fabric8.kubernetes.client.KubernetesClient;
+import io.fabric8.kubernetes.client.KubernetesClientException;
 import io.fabric8.kubernetes.client.Watch;
 import io.fabric8.kubernetes.client.Watcher;
 import io.fabric8.kubernetes.client.dsl.LogWatch;
@@ -53,6 +62,118 @@ public abstract class Kubernetes {
                 "Unable to find port " + portName + " for service " + service.getMetadata().getName());
     }
 
+    /**
+     * Returns the addresses of the ready pods behind a service, as listed in its Endpoints object.
+     */
+    public List<Endpoint> getPodEndpoints(String namespace, String serviceName, String port) {
+        Endpoints endpoints = client.endpoints().inNamespace(namespace).withName(serviceName).get();
+        return getPodEndpoints(endpoints, port);
+    }
+
+    /**
+     * Watches the Endpoints object of a service, passing the addresses of its ready pods to the listener
+     * on every change. When the watch closes on an error, the addresses are listed again and the watch is
+     * registered anew.
+     */
+    public Watch watchPodEndpoints(String namespace, String serviceName, String port, Consumer<List<Endpoint>> listener) {
+        return new PodEndpointsWatch(namespace, serviceName, port, listener);
+    }
+
+    private class PodEndpointsWatch implements Watch, Watcher<Endpoints> {
+
+        private static final int MAX_REWATCH_ATTEMPTS = 10;
+
+        private final String namespace;
+        private final String serviceName;
+        private final String port;
+        private final Consumer<List<Endpoint>> listener;
+        private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "endpoints-rewatch");
+            thread.setDaemon(true);
+            return thread;
+        });
+        private volatile Watch watch;
+        private volatile boolean closed;
+
+        private PodEndpointsWatch(String namespace, String serviceName, String port, Consumer<List<Endpoint>> listener) {
+            this.namespace = namespace;
+            this.serviceName = serviceName;
+            this.port = port;
+            this.listener = listener;
+            this.watch = client.endpoints().inNamespace(namespace).withName(serviceName).watch(this);
+        }
+
+        @Override
+        public void eventReceived(Action action, Endpoints endpoints) {
+            listener.accept(action == Action.DELETED ? new ArrayList<>() : getPodEndpoints(endpoints, port));
+        }
+
+        @Override
+        public void onClose(KubernetesClientException cause) {
+            if (cause == null || closed) {
+                return;
+            }
+            log.warn("Watch on endpoints of service {} closed ({}), watching again", serviceName, cause.getMessage());
+            executor.execute(() -> rewatch(1));
+        }
+
+        /**
+         * Runs on the watch's own executor, so that the websocket callback thread is never blocked.
+         */
+        private void rewatch(int attempt) {
+            if (closed) {
+                return;
+            }
+            try {
+                listener.accept(getPodEndpoints(namespace, serviceName, port));
+                watch = client.endpoints().inNamespace(namespace).withName(serviceName).watch(this);
+            } catch (KubernetesClientException e) {
+                if (attempt >= MAX_REWATCH_ATTEMPTS) {
+                    log.error("Unable to watch endpoints of service {}, pod addresses will no longer be updated",
+                            serviceName);
+                    return;
+                }
+                log.info("Exception querying kubernetes ({}), retrying", e.getMessage());
+                executor.schedule(() -> rewatch(attempt + 1), 5, TimeUnit.SECONDS);
+            }
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+            executor.shutdownNow();
+            watch.close();
+        }
+    }
+
+    private static List<Endpoint> getPodEndpoints(Endpoints endpoints, String portName) {
+        List<Endpoint> podEndpoints = new ArrayList<>();
+        if (endpoints == null || endpoints.getSubsets() == null) {
+            return podEndpoints;
+        }
+        for (EndpointSubset subset : endpoints.getSubsets()) {
+            if (subset.getAddresses() == null || subset.getPorts() == null) {
+                continue;
+            }
+            for (EndpointPort port : subset.getPorts()) {
+                if (portName.equals(port.getName())) {
+                    for (EndpointAddress address : subset.getAddresses()) {
+                        podEndpoints.add(new Endpoint(address.getIp(), port.getPort()));
+                    }
+                }
+            }
+        }
+        return podEndpoints;
+    }
+
+    public List<Endpoint> getKeycloakPodEndpoints() {
+        return getPodEndpoints(globalNamespace, "standard-authservice", "https");
+    }
+
+    public Watch watchKeycloakPodEndpoints(Consumer<List<Endpoint>> listener) {
+        return watchPodEndpoints(globalNamespace, "standard-authservice", "https", listener);
+    }
+
     public abstract Endpoint getRestEndpoint();
     public abstract Endpoint getKeycloakEndpoint();
     public abstract Endpoint getExternalEndpoint(String namespace, String name);
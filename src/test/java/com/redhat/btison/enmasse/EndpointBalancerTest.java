@@ -0,0 +1,118 @@
+package com.redhat.btison.enmasse;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class EndpointBalancerTest {
+
+    private static final Endpoint SERVICE = new Endpoint("keycloak.example.com", 443);
+    private static final Endpoint POD_A = new Endpoint("10.0.0.1", 8443);
+    private static final Endpoint POD_B = new Endpoint("10.0.0.2", 8443);
+
+    @Test
+    public void selectReturnsNullWithoutMembers() {
+        assertNull(new EndpointBalancer(SERVICE).select());
+    }
+
+    @Test
+    public void selectPicksLeastOutstanding() {
+        EndpointBalancer balancer = new EndpointBalancer(SERVICE);
+        balancer.update(Arrays.asList(POD_A, POD_B));
+
+        EndpointBalancer.Member first = balancer.select();
+        first.start();
+        EndpointBalancer.Member second = balancer.select();
+
+        assertEquals(other(first.getEndpoint()), second.getEndpoint());
+        second.start();
+        second.start();
+        assertSame(first, balancer.select());
+    }
+
+    @Test
+    public void failingMemberIsEjected() {
+        EndpointBalancer balancer = new EndpointBalancer(SERVICE, 3, 60000);
+        balancer.update(Arrays.asList(POD_A, POD_B));
+
+        EndpointBalancer.Member failing = balancer.select();
+        for (int i = 0; i < 3; i++) {
+            failing.start();
+            failing.failed();
+        }
+
+        for (int i = 0; i < 10; i++) {
+            assertEquals(other(failing.getEndpoint()), balancer.select().getEndpoint());
+        }
+    }
+
+    @Test
+    public void successResetsFailures() {
+        EndpointBalancer balancer = new EndpointBalancer(SERVICE, 3, 60000);
+        balancer.update(Collections.singletonList(POD_A));
+
+        EndpointBalancer.Member member = balancer.select();
+        for (int i = 0; i < 2; i++) {
+            member.start();
+            member.failed();
+        }
+        member.start();
+        member.succeeded();
+        member.start();
+        member.failed();
+
+        assertSame(member, balancer.select());
+    }
+
+    @Test
+    public void selectReturnsNullWhenAllMembersAreEjected() {
+        EndpointBalancer balancer = new EndpointBalancer(SERVICE, 1, 60000);
+        balancer.update(Arrays.asList(POD_A, POD_B));
+
+        for (int i = 0; i < 2; i++) {
+            EndpointBalancer.Member member = balancer.select();
+            member.start();
+            member.failed();
+        }
+
+        assertNull(balancer.select());
+    }
+
+    @Test
+    public void ejectedMemberIsReadmitted() throws Exception {
+        EndpointBalancer balancer = new EndpointBalancer(SERVICE, 1, 50);
+        balancer.update(Collections.singletonList(POD_A));
+
+        EndpointBalancer.Member member = balancer.select();
+        member.start();
+        member.failed();
+        assertNull(balancer.select());
+
+        Thread.sleep(100);
+        assertSame(member, balancer.select());
+    }
+
+    @Test
+    public void updateKeepsStateOfRemainingMembers() {
+        EndpointBalancer balancer = new EndpointBalancer(SERVICE, 1, 60000);
+        balancer.update(Collections.singletonList(POD_A));
+        EndpointBalancer.Member member = balancer.select();
+        member.start();
+        member.failed();
+
+        balancer.update(Arrays.asList(new Endpoint("10.0.0.1", 8443), POD_B));
+
+        for (int i = 0; i < 10; i++) {
+            assertEquals(POD_B.toString(), balancer.select().getEndpoint().toString());
+        }
+    }
+
+    private static Endpoint other(Endpoint endpoint) {
+        return endpoint == POD_A ? POD_B : POD_A;
+    }
+}
@@ -0,0 +1,124 @@
+package com.redhat.btison.enmasse;
+
+import org.junit.Test;
+import org.keycloak.common.util.Base64;
+import org.keycloak.credential.CredentialModel;
+import org.keycloak.credential.hash.Pbkdf2PasswordHashProvider;
+import org.keycloak.representations.idm.CredentialRepresentation;
+import org.keycloak.representations.idm.RealmRepresentation;
+import org.keycloak.representations.idm.UserRepresentation;
+
+import java.util.ArrayList;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class PasswordHasherTest {
+
+    @Test
+    public void hashIsVerifiedByKeycloak() throws Exception {
+        CredentialRepresentation cred = new PasswordHasher("pbkdf2", 20000).hash("s3cr3t!");
+
+        assertEquals("pbkdf2", cred.getAlgorithm());
+        assertEquals(Integer.valueOf(20000), cred.getHashIterations());
+        Pbkdf2PasswordHashProvider keycloak = new Pbkdf2PasswordHashProvider("pbkdf2", "PBKDF2WithHmacSHA1", 20000);
+        assertTrue(keycloak.verify("s3cr3t!", toModel(cred)));
+        assertFalse(keycloak.verify("wrong", toModel(cred)));
+    }
+
+    @Test
+    public void hashUsesRealmPolicy() throws Exception {
+        RealmRepresentation realm = new RealmRepresentation();
+        realm.setPasswordPolicy("hashAlgorithm(pbkdf2-sha256) and hashIterations(1000) and length(4)");
+
+        CredentialRepresentation cred = PasswordHasher.forRealm(realm).hash("s3cr3t!");
+
+        assertEquals("pbkdf2-sha256", cred.getAlgorithm());
+        assertEquals(Integer.valueOf(1000), cred.getHashIterations());
+        assertTrue(new Pbkdf2PasswordHashProvider("pbkdf2-sha256", "PBKDF2WithHmacSHA256", 27500)
+                .verify("s3cr3t!", toModel(cred)));
+    }
+
+    @Test
+    public void hashUsesKeycloakDefaultsWithoutPolicy() throws Exception {
+        CredentialRepresentation cred = PasswordHasher.forRealm(new RealmRepresentation()).hash("s3cr3t!");
+
+        assertEquals("pbkdf2-sha256", cred.getAlgorithm());
+        assertEquals(Integer.valueOf(27500), cred.getHashIterations());
+        assertTrue(new Pbkdf2PasswordHashProvider("pbkdf2-sha256", "PBKDF2WithHmacSHA256", 27500)
+                .verify("s3cr3t!", toModel(cred)));
+    }
+
+    @Test
+    public void hashUsesAlgorithmDefaultIterations() {
+        RealmRepresentation realm = new RealmRepresentation();
+        realm.setPasswordPolicy("hashAlgorithm(pbkdf2-sha512)");
+        assertEquals(Integer.valueOf(30000), PasswordHasher.forRealm(realm).hash("s3cr3t!").getHashIterations());
+
+        realm.setPasswordPolicy("hashAlgorithm(pbkdf2)");
+        assertEquals(Integer.valueOf(20000), PasswordHasher.forRealm(realm).hash("s3cr3t!").getHashIterations());
+    }
+
+    @Test
+    public void hashCredentialsReplacesPlaintextPasswords() {
+        CredentialRepresentation plain = new CredentialRepresentation();
+        plain.setType(CredentialRepresentation.PASSWORD);
+        plain.setValue("s3cr3t!");
+        plain.setTemporary(true);
+        UserRepresentation user = new UserRepresentation();
+        user.setUsername("user");
+        user.setCredentials(new ArrayList<>(Collections.singletonList(plain)));
+
+        new PasswordHasher("pbkdf2", 1000).hashCredentials(user);
+
+        CredentialRepresentation hashed = user.getCredentials().get(0);
+        assertNull(hashed.getValue());
+        assertEquals(Boolean.TRUE, hashed.isTemporary());
+        assertEquals("pbkdf2", hashed.getAlgorithm());
+    }
+
+    @Test
+    public void validateAcceptsPasswordMatchingPolicy() {
+        RealmRepresentation realm = new RealmRepresentation();
+        realm.setPasswordPolicy("length(8) and digits(2) and upperCase and specialChars and notUsername(undefined)");
+
+        PasswordHasher.forRealm(realm).validate("user", "Passw0rd1!");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void validateRejectsShortPassword() {
+        RealmRepresentation realm = new RealmRepresentation();
+        realm.setPasswordPolicy("hashIterations(1000) and length");
+
+        PasswordHasher.forRealm(realm).validate("user", "short");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void validateRejectsUsername() {
+        RealmRepresentation realm = new RealmRepresentation();
+        realm.setPasswordPolicy("notUsername(undefined)");
+
+        PasswordHasher.forRealm(realm).validate("username", "username");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void validateRejectsPasswordNotMatchingPattern() {
+        RealmRepresentation realm = new RealmRepresentation();
+        realm.setPasswordPolicy("regexPattern([a-z]+)");
+
+        PasswordHasher.forRealm(realm).validate("user", "abc1");
+    }
+
+    private static CredentialModel toModel(CredentialRepresentation cred) throws Exception {
+        CredentialModel model = new CredentialModel();
+        model.setType(cred.getType());
+        model.setAlgorithm(cred.getAlgorithm());
+        model.setHashIterations(cred.getHashIterations());
+        model.setSalt(Base64.decode(cred.getSalt()));
+        model.setValue(cred.getHashedSaltedValue());
+        return model;
+    }
+}
@@ -0,0 +1,179 @@
+package com.redhat.btison.enmasse;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.keycloak.admin.client.resource.GroupResource;
+import org.keycloak.admin.client.resource.GroupsResource;
+import org.keycloak.admin.client.resource.RealmResource;
+import org.keycloak.admin.client.resource.UsersResource;
+import org.keycloak.representations.idm.GroupRepresentation;
+import org.keycloak.representations.idm.UserRepresentation;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class RealmTransferTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final RealmTransfer transfer = new RealmTransfer(null);
+
+    @Test
+    public void groupRecordRoundTrip() throws Exception {
+        GroupRepresentation group = group(null, "b", "/a/b");
+        group.setAttributes(Collections.singletonMap("key", Collections.singletonList("value")));
+
+        String line = transfer.encodeGroup(group);
+        RealmTransfer.Record record = transfer.decode(line);
+
+        assertEquals("group", record.type);
+        assertEquals("b", record.group.getName());
+        assertEquals("/a/b", record.group.getPath());
+        assertEquals(Collections.singletonList("value"), record.group.getAttributes().get("key"));
+        assertFalse(line.contains("\"id\""));
+    }
+
+    @Test
+    public void userRecordRoundTrip() throws Exception {
+        UserRepresentation user = user("user1");
+        user.setEmail("user1@example.com");
+        user.setEnabled(true);
+
+        String line = transfer.encodeUser(user);
+        RealmTransfer.Record record = transfer.decode(line);
+
+        assertEquals("user", record.type);
+        assertEquals("user1", record.user.getUsername());
+        assertEquals("user1@example.com", record.user.getEmail());
+        assertEquals(Boolean.TRUE, record.user.isEnabled());
+        assertFalse(line.contains("\"credentials\""));
+    }
+
+    @Test
+    public void membershipRecordRoundTrip() throws Exception {
+        String line = transfer.encodeMembership("/a/b", "user1");
+        RealmTransfer.Record record = transfer.decode(line);
+
+        assertEquals("{\"type\":\"membership\",\"group\":\"/a/b\",\"user\":\"user1\"}", line);
+        assertEquals("membership", record.type);
+        assertEquals("/a/b", record.groupPath);
+        assertEquals("user1", record.username);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void decodeRejectsUnknownType() throws Exception {
+        transfer.decode("{\"type\":\"role\",\"role\":{\"name\":\"admin\"}}");
+    }
+
+    @Test
+    public void exportWritesGroupsUsersAndMemberships() throws Exception {
+        GroupRepresentation a = group("ga", "a", "/a");
+        a.setRealmRoles(Collections.singletonList("admin"));
+        a.setSubGroups(Collections.singletonList(group("gb", "b", "/a/b")));
+        List<UserRepresentation> users = Arrays.asList(user("user1"), user("user2"), user("user3"));
+        Map<String, List<UserRepresentation>> members = new HashMap<>();
+        members.put("ga", Arrays.asList(user("user1"), user("user3")));
+        members.put("gb", Collections.emptyList());
+
+        Path file = folder.getRoot().toPath().resolve("realm.jsonl.gz");
+        new RealmTransfer(realm(Collections.singletonList(a), users, members)).exportTo(file, 2);
+
+        List<RealmTransfer.Record> records = read(file);
+        assertEquals(7, records.size());
+        assertEquals("/a", records.get(0).group.getPath());
+        assertNull(records.get(0).group.getRealmRoles());
+        assertNull(records.get(0).group.getId());
+        assertEquals("/a/b", records.get(1).group.getPath());
+        assertEquals("user1", records.get(2).user.getUsername());
+        assertEquals("user3", records.get(4).user.getUsername());
+        assertNull(records.get(4).user.getId());
+        assertEquals("/a", records.get(5).groupPath);
+        assertEquals("user1", records.get(5).username);
+        assertEquals("user3", records.get(6).username);
+        assertTrue(records.stream().skip(5).allMatch(record -> "membership".equals(record.type)));
+    }
+
+    private List<RealmTransfer.Record> read(Path file) throws Exception {
+        List<RealmTransfer.Record> records = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new GZIPInputStream(Files.newInputStream(file)), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                records.add(transfer.decode(line));
+            }
+        }
+        return records;
+    }
+
+    private static GroupRepresentation group(String id, String name, String path) {
+        GroupRepresentation group = new GroupRepresentation();
+        group.setId(id);
+        group.setName(name);
+        group.setPath(path);
+        return group;
+    }
+
+    private static UserRepresentation user(String username) {
+        UserRepresentation user = new UserRepresentation();
+        user.setId("id-" + username);
+        user.setUsername(username);
+        return user;
+    }
+
+    private static <T> List<T> page(List<T> list, Object first, Object max) {
+        int from = Math.min((Integer) first, list.size());
+        int to = Math.min(from + (Integer) max, list.size());
+        return new ArrayList<>(list.subList(from, to));
+    }
+
+    private static RealmResource realm(List<GroupRepresentation> groups, List<UserRepresentation> users,
+                                       Map<String, List<UserRepresentation>> members) {
+        Map<String, Function<Object[], Object>> usersMethods = new HashMap<>();
+        usersMethods.put("search", args -> page(users, args[1], args[2]));
+        UsersResource usersResource = stub(UsersResource.class, usersMethods);
+
+        Map<String, Function<Object[], Object>> groupsMethods = new HashMap<>();
+        groupsMethods.put("groups", args -> groups);
+        groupsMethods.put("group", args -> {
+            Map<String, Function<Object[], Object>> groupMethods = new HashMap<>();
+            groupMethods.put("members", memberArgs -> page(members.get((String) args[0]), memberArgs[0], memberArgs[1]));
+            return stub(GroupResource.class, groupMethods);
+        });
+        GroupsResource groupsResource = stub(GroupsResource.class, groupsMethods);
+
+        Map<String, Function<Object[], Object>> realmMethods = new HashMap<>();
+        realmMethods.put("users", args -> usersResource);
+        realmMethods.put("groups", args -> groupsResource);
+        return stub(RealmResource.class, realmMethods);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T stub(Class<T> type, Map<String, Function<Object[], Object>> methods) {
+        return (T) Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] { type }, (proxy, method, args) -> {
+            Function<Object[], Object> handler = methods.get(method.getName());
+            if (handler == null) {
+                throw new UnsupportedOperationException(method.toString());
+            }
+            return handler.apply(args);
+        });
+    }
+}